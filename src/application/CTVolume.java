@@ -0,0 +1,105 @@
+package application;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * The CThead data set, read once and shared by the viewer and the slice
+ * server.
+ */
+public class CTVolume {
+	public static final String FILENAME = "CThead";
+
+	public static final int PICTURE_WIDTH = 256;
+	public static final int PICTURE_HEIGHT = 256;
+	public static final int PICTURE_NUMBER = 113;
+
+	private final short cthead[][][];
+	private final float grey[][][];
+	private final short min;
+	private final short max;
+
+	private CTVolume(short[][][] cthead, float[][][] grey, short min, short max) {
+		this.cthead = cthead;
+		this.grey = grey;
+		this.min = min;
+		this.max = max;
+	}
+
+	public static CTVolume read(String filename) throws IOException {
+		File file = new File(filename);
+
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)));
+
+		short min = Short.MAX_VALUE;
+		short max = Short.MIN_VALUE;
+
+		short read;
+		int b1;
+		int b2;
+
+		// allocate memory for the dataset
+		short[][][] cthead = new short[PICTURE_NUMBER][PICTURE_WIDTH][PICTURE_HEIGHT];
+		float[][][] grey = new float[PICTURE_NUMBER][PICTURE_WIDTH][PICTURE_HEIGHT];
+
+		// read the data
+		try {
+			for (int k = 0; k < PICTURE_NUMBER; k++) {
+				for (int j = 0; j < PICTURE_WIDTH; j++) {
+					for (int i = 0; i < PICTURE_HEIGHT; i++) {
+						// swap bytes
+						b1 = ((int) in.readByte()) & 0xff;
+						b2 = ((int) in.readByte()) & 0xff;
+						read = (short) ((b2 << 8) | b1);
+
+						if (read < min) {
+							min = read; // update the minimum
+						}
+
+						if (read > max) {
+							max = read; // update the maximum
+						}
+
+						cthead[k][j][i] = read;
+					}
+				}
+			}
+		} finally {
+			in.close();
+		}
+
+		// scale color to 0-1 values
+		for (int k = 0; k < PICTURE_NUMBER; k++) {
+			for (int j = 0; j < PICTURE_WIDTH; j++) {
+				for (int i = 0; i < PICTURE_HEIGHT; i++) {
+					grey[k][j][i] = ((float) cthead[k][j][i] - (float) min) / ((float) max - (float) min);
+				}
+			}
+		}
+
+		// diagnostic - forCThead this should be -1117, 2248
+		System.out.println(min + " " + max);
+
+		return new CTVolume(cthead, grey, min, max);
+	}
+
+	public short[][][] getCthead() {
+		return cthead;
+	}
+
+	public float[][][] getGrey() {
+		return grey;
+	}
+
+	public short getMin() {
+		return min;
+	}
+
+	public short getMax() {
+		return max;
+	}
+}
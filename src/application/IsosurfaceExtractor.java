@@ -0,0 +1,475 @@
+package application;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Extracts an isosurface, such as bone or skin, from the CT volume with
+ * marching cubes.
+ *
+ * The cell layers between slices are split into slabs that are marched in
+ * parallel. Each slab cuts every edge once and keeps the vertex index per
+ * edge, so neighbouring cells share vertices. The plane between two slabs is
+ * cut by both of them, and the copy in the upper slab is mapped onto the
+ * lower slab's vertices when the slabs are merged, so the mesh has no
+ * duplicate vertices along slab boundaries.
+ *
+ * Nothing is added outside the volume, so where the material reaches the
+ * first or last slice, or the edge of a slice, the surface is left open
+ * there. The CThead skin is cut off like this at both ends of the stack.
+ */
+public class IsosurfaceExtractor {
+	// CThead slices are twice as far apart as the pixels within a slice
+	private static final double SLICE_SPACING = 2;
+
+	private static final int SLABS_PER_THREAD = 4;
+	private static final int MIN_LAYERS_PER_SLAB = 8;
+	private static final int INITIAL_CAPACITY = 1 << 12;
+
+	// the two corners at the ends of each edge of a cell, corners 0 to 3
+	// going round the lower slice from (x, y) and 4 to 7 above them
+	private static final int[][] EDGES = {
+			{ 0, 1 }, { 1, 2 }, { 2, 3 }, { 3, 0 },
+			{ 4, 5 }, { 5, 6 }, { 6, 7 }, { 7, 4 },
+			{ 0, 4 }, { 1, 5 }, { 2, 6 }, { 3, 7 } };
+
+	// the corners of each face of a cell, counter-clockwise seen from outside
+	private static final int[][] FACES = {
+			{ 0, 3, 2, 1 }, { 4, 5, 6, 7 }, { 0, 1, 5, 4 },
+			{ 3, 7, 6, 2 }, { 0, 4, 7, 3 }, { 1, 2, 6, 5 } };
+
+	// cut edges making up the triangles for each of the 256 cell cases
+	private static final int[][] TRIANGLES = createTriangleTable();
+
+	private final short[][][] volume;
+	private final float spacingX;
+	private final float spacingY;
+	private final float spacingZ;
+
+	private final int width;
+	private final int height;
+
+	public IsosurfaceExtractor(short[][][] volume,
+			double spacingX, double spacingY, double spacingZ) {
+		this.volume = volume;
+		this.spacingX = (float) spacingX;
+		this.spacingY = (float) spacingY;
+		this.spacingZ = (float) spacingZ;
+
+		this.height = volume[0].length;
+		this.width = volume[0][0].length;
+	}
+
+	public Mesh extract(double iso) {
+		int layers = volume.length - 1;
+		int slabCount = Math.min(layers / MIN_LAYERS_PER_SLAB,
+				Runtime.getRuntime().availableProcessors() * SLABS_PER_THREAD);
+
+		return this.extract(iso, slabCount);
+	}
+
+	/**
+	 * The volume holds whole numbers, so a whole iso value would put vertices
+	 * exactly on the corners that equal it, giving zero area triangles. Such
+	 * a value is lowered by half a unit, which keeps the same corners above
+	 * the surface but cuts their edges part way.
+	 */
+	public Mesh extract(double iso, int slabCount) {
+		int layers = volume.length - 1;
+		if (layers < 1) {
+			return new Mesh(new float[0], new int[0]);
+		}
+
+		if (iso == Math.rint(iso)) {
+			iso -= .5;
+		}
+
+		slabCount = Math.max(1, Math.min(slabCount, layers));
+
+		Slab[] slabs = new Slab[slabCount];
+		for (int s = 0; s < slabCount; s++) {
+			slabs[s] = new Slab((float) iso,
+					layers * s / slabCount, layers * (s + 1) / slabCount);
+		}
+
+		IntStream.range(0, slabCount).parallel().forEach(s -> slabs[s].march());
+
+		return this.merge(slabs);
+	}
+
+	private Mesh merge(Slab[] slabs) {
+		// vertices on the bottom plane of every slab but the first are
+		// duplicates of the top plane of the slab below, so they are dropped.
+		// Both planes are cut in the same order, so the nth bottom vertex is
+		// the nth vertex cut on the plane below
+		int[] dropped = new int[slabs.length];
+		int[] vertexBase = new int[slabs.length];
+		int[] indexBase = new int[slabs.length];
+
+		int vertexCount = 0;
+		int indexCount = 0;
+		for (int s = 0; s < slabs.length; s++) {
+			dropped[s] = s > 0 ? slabs[s].bottomCount : 0;
+			vertexBase[s] = vertexCount;
+			indexBase[s] = indexCount;
+
+			vertexCount += slabs[s].vertices.size / 3 - dropped[s];
+			indexCount += slabs[s].indices.size;
+		}
+
+		float[] vertices = new float[vertexCount * 3];
+		int[] indices = new int[indexCount];
+
+		IntStream.range(0, slabs.length).parallel().forEach(s -> {
+			Slab slab = slabs[s];
+			int slabVertices = slab.vertices.size / 3;
+
+			// map the slab's own vertex numbers onto the merged mesh
+			int[] remap = new int[slabVertices];
+			for (int v = dropped[s]; v < slabVertices; v++) {
+				remap[v] = vertexBase[s] + v - dropped[s];
+			}
+
+			if (s > 0) {
+				Slab below = slabs[s - 1];
+				if (below.topCount != slab.bottomCount) {
+					throw new IllegalStateException("Slabs " + (s - 1) + " and " + s
+							+ " cut their shared plane differently");
+				}
+
+				for (int v = 0; v < dropped[s]; v++) {
+					remap[v] = vertexBase[s - 1] + below.topStart + v - dropped[s - 1];
+				}
+			}
+
+			System.arraycopy(slab.vertices.data, dropped[s] * 3, vertices,
+					vertexBase[s] * 3, (slabVertices - dropped[s]) * 3);
+
+			for (int i = 0; i < slab.indices.size; i++) {
+				indices[indexBase[s] + i] = remap[slab.indices.data[i]];
+			}
+		});
+
+		return new Mesh(vertices, indices);
+	}
+
+	/**
+	 * Marches the cells between slices firstLayer and endLayer. Vertex
+	 * indices are per edge, one array per plane for the edges along x and
+	 * along y, and one for the edges between two planes along z.
+	 */
+	private class Slab {
+		private final float iso;
+		private final int firstLayer;
+		private final int endLayer;
+
+		private final FloatList vertices = new FloatList();
+		private final IntList indices = new IntList();
+
+		// vertices cut on the first plane, numbered from zero
+		private int bottomCount;
+
+		// vertices cut on the last plane, numbered from topStart
+		private int topStart;
+		private int topCount;
+
+		private Slab(float iso, int firstLayer, int endLayer) {
+			this.iso = iso;
+			this.firstLayer = firstLayer;
+			this.endLayer = endLayer;
+		}
+
+		private void march() {
+			int planeSize = width * height;
+			int[] lowX = new int[planeSize];
+			int[] lowY = new int[planeSize];
+			int[] highX = new int[planeSize];
+			int[] highY = new int[planeSize];
+			int[] edgeZ = new int[planeSize];
+
+			this.cutPlane(firstLayer, lowX, lowY);
+			bottomCount = vertices.size / 3;
+
+			for (int z = firstLayer; z < endLayer; z++) {
+				topStart = vertices.size / 3;
+				this.cutPlane(z + 1, highX, highY);
+				topCount = vertices.size / 3 - topStart;
+				this.cutColumns(z, edgeZ);
+				this.polygonise(z, lowX, lowY, highX, highY, edgeZ);
+
+				// the top of this layer is the bottom of the next one
+				int[] swap = lowX;
+				lowX = highX;
+				highX = swap;
+				swap = lowY;
+				lowY = highY;
+				highY = swap;
+			}
+		}
+
+		private void cutPlane(int z, int[] edgeX, int[] edgeY) {
+			Arrays.fill(edgeX, -1);
+			Arrays.fill(edgeY, -1);
+
+			for (int y = 0; y < height; y++) {
+				short[] row = volume[z][y];
+				short[] nextRow = y + 1 < height ? volume[z][y + 1] : null;
+
+				for (int x = 0; x < width; x++) {
+					float value = row[x];
+
+					if (x + 1 < width && (value < iso) != (row[x + 1] < iso)) {
+						float t = (iso - value) / (row[x + 1] - value);
+						edgeX[y * width + x] = this.addVertex(x + t, y, z);
+					}
+
+					if (nextRow != null && (value < iso) != (nextRow[x] < iso)) {
+						float t = (iso - value) / (nextRow[x] - value);
+						edgeY[y * width + x] = this.addVertex(x, y + t, z);
+					}
+				}
+			}
+		}
+
+		private void cutColumns(int z, int[] edgeZ) {
+			Arrays.fill(edgeZ, -1);
+
+			for (int y = 0; y < height; y++) {
+				short[] row = volume[z][y];
+				short[] upperRow = volume[z + 1][y];
+
+				for (int x = 0; x < width; x++) {
+					float value = row[x];
+
+					if ((value < iso) != (upperRow[x] < iso)) {
+						float t = (iso - value) / (upperRow[x] - value);
+						edgeZ[y * width + x] = this.addVertex(x, y, z + t);
+					}
+				}
+			}
+		}
+
+		private void polygonise(int z, int[] lowX, int[] lowY,
+				int[] highX, int[] highY, int[] edgeZ) {
+			for (int y = 0; y < height - 1; y++) {
+				short[] row0 = volume[z][y];
+				short[] row1 = volume[z][y + 1];
+				short[] row2 = volume[z + 1][y];
+				short[] row3 = volume[z + 1][y + 1];
+
+				for (int x = 0; x < width - 1; x++) {
+					// one bit per corner below the iso value, in corner order
+					int cube = 0;
+					if (row0[x] < iso) cube |= 1;
+					if (row0[x + 1] < iso) cube |= 2;
+					if (row1[x + 1] < iso) cube |= 4;
+					if (row1[x] < iso) cube |= 8;
+					if (row2[x] < iso) cube |= 16;
+					if (row2[x + 1] < iso) cube |= 32;
+					if (row3[x + 1] < iso) cube |= 64;
+					if (row3[x] < iso) cube |= 128;
+
+					if (cube == 0 || cube == 255) {
+						continue; // the surface does not pass through this cell
+					}
+
+					int i = y * width + x;
+					for (int edge : TRIANGLES[cube]) {
+						indices.add(switch (edge) {
+							case 0 -> lowX[i];
+							case 1 -> lowY[i + 1];
+							case 2 -> lowX[i + width];
+							case 3 -> lowY[i];
+							case 4 -> highX[i];
+							case 5 -> highY[i + 1];
+							case 6 -> highX[i + width];
+							case 7 -> highY[i];
+							case 8 -> edgeZ[i];
+							case 9 -> edgeZ[i + 1];
+							case 10 -> edgeZ[i + width + 1];
+							default -> edgeZ[i + width];
+						});
+					}
+				}
+			}
+		}
+
+		private int addVertex(float x, float y, float z) {
+			vertices.add(x * spacingX);
+			vertices.add(y * spacingY);
+			vertices.add(z * spacingZ);
+
+			return vertices.size / 3 - 1;
+		}
+	}
+
+	/**
+	 * Builds the marching cubes case table instead of spelling out all 256
+	 * cases. On each face the contour runs between the cut edges around the
+	 * corners below the iso value, cutting them off one by one where a face
+	 * is ambiguous. Both cells sharing a face see the same contour there, so
+	 * the surface has no cracks. The contour loops around the cell are then
+	 * split into triangle fans.
+	 */
+	private static int[][] createTriangleTable() {
+		int[][] table = new int[256][];
+
+		for (int cube = 0; cube < 256; cube++) {
+			// next[e] is the cut edge the contour reaches after edge e
+			int[] next = new int[EDGES.length];
+			Arrays.fill(next, -1);
+
+			for (int[] face : FACES) {
+				for (int i = 0; i < 4; i++) {
+					int from = face[i];
+					int to = face[(i + 1) % 4];
+
+					// the contour enters the corners below the iso value here
+					if (!isBelow(cube, from) && isBelow(cube, to)) {
+						// and leaves them at the next edge going outwards
+						int j = (i + 1) % 4;
+						while (isBelow(cube, face[(j + 1) % 4])) {
+							j = (j + 1) % 4;
+						}
+
+						next[findEdge(from, to)] = findEdge(face[j], face[(j + 1) % 4]);
+					}
+				}
+			}
+
+			IntList triangles = new IntList();
+			boolean[] visited = new boolean[EDGES.length];
+
+			for (int first = 0; first < EDGES.length; first++) {
+				if (next[first] < 0 || visited[first]) {
+					continue;
+				}
+
+				IntList loop = new IntList();
+				for (int e = first; !visited[e]; e = next[e]) {
+					visited[e] = true;
+					loop.add(e);
+				}
+
+				// fan out from the corner whose diagonals do not lie on a
+				// face, a neighbouring cell may use the same chord there
+				int start = 0;
+				int fewest = Integer.MAX_VALUE;
+				for (int i = 0; i < loop.size; i++) {
+					int onFace = 0;
+					for (int k = 2; k < loop.size - 1; k++) {
+						if (shareFace(loop.data[i], loop.data[(i + k) % loop.size])) {
+							onFace++;
+						}
+					}
+					if (onFace < fewest) {
+						fewest = onFace;
+						start = i;
+					}
+				}
+
+				// wound so the front faces the corners below the iso value
+				for (int k = 1; k < loop.size - 1; k++) {
+					triangles.add(loop.data[start]);
+					triangles.add(loop.data[(start + k + 1) % loop.size]);
+					triangles.add(loop.data[(start + k) % loop.size]);
+				}
+			}
+
+			table[cube] = Arrays.copyOf(triangles.data, triangles.size);
+		}
+
+		return table;
+	}
+
+	private static boolean isBelow(int cube, int corner) {
+		return (cube & (1 << corner)) != 0;
+	}
+
+	private static boolean shareFace(int edgeA, int edgeB) {
+		for (int[] face : FACES) {
+			if (isOnFace(face, edgeA) && isOnFace(face, edgeB)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean isOnFace(int[] face, int edge) {
+		int found = 0;
+		for (int corner : face) {
+			if (corner == EDGES[edge][0] || corner == EDGES[edge][1]) {
+				found++;
+			}
+		}
+
+		return found == 2;
+	}
+
+	private static int findEdge(int cornerA, int cornerB) {
+		for (int e = 0; e < EDGES.length; e++) {
+			if ((EDGES[e][0] == cornerA && EDGES[e][1] == cornerB)
+					|| (EDGES[e][0] == cornerB && EDGES[e][1] == cornerA)) {
+				return e;
+			}
+		}
+
+		throw new IllegalArgumentException("Corners " + cornerA + " and "
+				+ cornerB + " do not share an edge");
+	}
+
+	private static class FloatList {
+		private float[] data = new float[INITIAL_CAPACITY];
+		private int size;
+
+		private void add(float value) {
+			if (size == data.length) {
+				data = Arrays.copyOf(data, size * 2);
+			}
+			data[size++] = value;
+		}
+	}
+
+	private static class IntList {
+		private int[] data = new int[INITIAL_CAPACITY];
+		private int size;
+
+		private void add(int value) {
+			if (size == data.length) {
+				data = Arrays.copyOf(data, size * 2);
+			}
+			data[size++] = value;
+		}
+	}
+
+	/**
+	 * Usage: IsosurfaceExtractor iso output.stl|output.ply
+	 *
+	 * The iso value is in raw CT units, as printed when clicking the slice in
+	 * the viewer.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: IsosurfaceExtractor iso output.stl|output.ply");
+			System.exit(1);
+		}
+
+		double iso = Double.parseDouble(args[0]);
+		String output = args[1];
+
+		CTVolume volume = CTVolume.read(CTVolume.FILENAME);
+		IsosurfaceExtractor extractor =
+				new IsosurfaceExtractor(volume.getCthead(), 1, 1, SLICE_SPACING);
+
+		long start = System.nanoTime();
+		Mesh mesh = extractor.extract(iso);
+		long elapsed = System.nanoTime() - start;
+
+		System.out.printf("%d vertices, %d triangles in %.1f ms%n",
+				mesh.getVertexCount(), mesh.getTriangleCount(), elapsed / 1e6);
+
+		mesh.write(output);
+	}
+}
@@ -1,11 +1,6 @@
 package application;
 	
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.HashMap;
 
 import javafx.application.Application;
 import javafx.stage.Stage;
@@ -15,7 +10,7 @@ import javafx.scene.control.Slider;
 import javafx.scene.control.ToggleGroup;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
-import javafx.scene.image.PixelReader;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.PixelWriter;
 import javafx.scene.image.WritableImage;
 import javafx.scene.input.MouseEvent;
@@ -24,8 +19,6 @@ import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 
 public class Main extends Application {
-	private static final String FILENAME = "CThead";
-
 	private static final int SCENE_WIDTH = 1024;
 	private static final int SCENE_HEIGHT = 768;
 	
@@ -36,46 +29,36 @@ public class Main extends Application {
 	private static final int THUMB_PICTURE_SIZE = 38;
 	private static final int THUMB_GAP_SIZE = 4;
 	
-	private static final int PICTURE_WIDTH = 256;
-	private static final int PICTURE_HEIGHT = 256;
-	private static final int PICTURE_NUMBER = 113;
-	
-	private static final int MIN_RESOLUTION = 32;
-	private static final int MAX_RESOLUTION = 1024;
-	private static final int DEFAULT_RESOLUTION = 256;
-	
-	private static final double MIN_GAMMA = .1;
-	private static final double MAX_GAMMA = 4;
-	private static final double DEFAULT_GAMMA = 1;
-	
 	private static final int DEFAULT_IMAGE = 76;
 	
-	private static final int COLOR_VARIATIONS = 256;
-	
 	private static final ResizeMethod DEFAULT_RESIZE_METHOD 
 											= ResizeMethod.NEAREST_NEIGHBOUR;
 	
 	private ImageView imageView; // ImageView of the displayed image
 	private short cthead[][][];
 	private float grey[][][];
+	private RenderPipeline pipeline;
+	
+	// upload stage, the last pipeline output and the image it was copied to
+	private long uploadedGeneration = -1;
+	private WritableImage uploadedImage;
+	private int[] argb;
 	
 	//current state variables;
 	private int currentImage = DEFAULT_IMAGE;
-	private int currentSize = DEFAULT_RESOLUTION;
-	private double currentGamma = DEFAULT_GAMMA;
+	private int currentSize = SliceRenderer.DEFAULT_RESOLUTION;
+	private double currentGamma = SliceRenderer.DEFAULT_GAMMA;
 	private ResizeMethod currentResizeMethod = DEFAULT_RESIZE_METHOD;
 	
-	enum ResizeMethod {
-		NEAREST_NEIGHBOUR,
-		BILINEAR_INTERPOLATION
-	}
-	
 	@Override
 	public void start(Stage primaryStage) {		
 		primaryStage.setTitle("CThead Viewer");
 		
 		try {
-			this.readData(FILENAME);
+			CTVolume volume = CTVolume.read(CTVolume.FILENAME);
+			this.cthead = volume.getCthead();
+			this.grey = volume.getGrey();
+			this.pipeline = new RenderPipeline(new SliceRenderer(grey));
 		} catch (IOException e) {
 			System.out.println("Could not find CThead file in the working "
 					+ "directory.");
@@ -101,9 +84,11 @@ public class Main extends Application {
 		
 		//create sliders
 		Slider sizeSlider =
-				new Slider(MIN_RESOLUTION, MAX_RESOLUTION, DEFAULT_RESOLUTION);
+				new Slider(SliceRenderer.MIN_RESOLUTION, SliceRenderer.MAX_RESOLUTION,
+						SliceRenderer.DEFAULT_RESOLUTION);
 		
-		Slider gammaSlider = new Slider(MIN_GAMMA, MAX_GAMMA, DEFAULT_GAMMA);
+		Slider gammaSlider = new Slider(SliceRenderer.MIN_GAMMA,
+				SliceRenderer.MAX_GAMMA, SliceRenderer.DEFAULT_GAMMA);
 		
 		group.selectedToggleProperty().addListener((ob, o, n) -> {
 			if (rb1.isSelected()) {
@@ -129,6 +114,21 @@ public class Main extends Application {
 			this.updateImage();
 		});
 		
+		imageView.addEventHandler(MouseEvent.MOUSE_CLICKED, event -> {
+			// map the click back to a pixel of the original slice
+			double relativeDivisor = SliceRenderer.DEFAULT_RESOLUTION / (double) currentSize;
+			int relativeX = Math.min((int) (event.getX() * relativeDivisor),
+					SliceRenderer.DEFAULT_RESOLUTION - 1);
+			int relativeY = Math.min((int) (event.getY() * relativeDivisor),
+					SliceRenderer.DEFAULT_RESOLUTION - 1);
+			
+			// raw CT value, usable as the iso value for IsosurfaceExtractor
+			System.out.println("Value at (" + relativeX + ", " + relativeY + "): "
+					+ cthead[currentImage][relativeY][relativeX]);
+			
+			event.consume();
+		});
+		
 		// build main GUI scene
 		VBox root = new VBox();
 		
@@ -141,219 +141,35 @@ public class Main extends Application {
 		this.createThumbWindow(0, 0);
 	}
 	
-	private void readData(String filename) throws IOException {
-		File file = new File(filename);
-		
-		DataInputStream in = new DataInputStream(
-				new BufferedInputStream(new FileInputStream(file)));
-		
-		short min = Short.MAX_VALUE;
-		short max = Short.MIN_VALUE;
-		
-		short read;
-		int b1;
-		int b2;
-
-		// allocate memory for the dataset
-		cthead = new short[PICTURE_NUMBER][PICTURE_WIDTH][PICTURE_HEIGHT];
-		grey = new float[PICTURE_NUMBER][PICTURE_WIDTH][PICTURE_HEIGHT];
-		
-		// read the data
-		for (int k = 0; k < PICTURE_NUMBER; k++) {
-			for (int j = 0; j < PICTURE_WIDTH; j++) {
-				for (int i = 0; i < PICTURE_HEIGHT; i++) {
-					// swap bytes
-					b1 = ((int) in.readByte()) & 0xff;
-					b2 = ((int) in.readByte()) & 0xff;
-					read = (short) ((b2 << 8) | b1);
-					
-					if (read < min) {
-						min = read; // update the minimum
-					}
-
-					if (read > max) {
-						max = read; // update the maximum
-					}
-
-					cthead[k][j][i] = read;
-				}
-			}
-		}
-		
-		// scale color to 0-1 values
-		for (int k = 0; k < PICTURE_NUMBER; k++) {
-			for (int j = 0; j < PICTURE_WIDTH; j++) {
-				for (int i = 0; i < PICTURE_HEIGHT; i++) {
-					grey[k][j][i] = ((float) cthead[k][j][i] - (float) min) / ((float) max - (float) min);
-				}
-			}
-		}
-		
-		in.close();
-		
-		// diagnostic - forCThead this should be -1117, 2248
-		System.out.println(min + " " + max);
-	}
-	
 	public Image getSlice() {
-		WritableImage image = new WritableImage(currentSize, currentSize);
-		
-		PixelWriter imageWriter = image.getPixelWriter();
-		
-		double relativeDivisor = DEFAULT_RESOLUTION / (double) currentSize;
-		
-		if (currentResizeMethod == ResizeMethod.NEAREST_NEIGHBOUR) {
-			this.resizeNearest(relativeDivisor, imageWriter);
-		} else if (currentResizeMethod == ResizeMethod.BILINEAR_INTERPOLATION) {
-			this.resizeBilinear(relativeDivisor, imageWriter);
-		}
-		
-		this.applyGammaCorrection(imageWriter, image.getPixelReader());
-		
-		return image;
-	}
-	
-	public void resizeNearest(double relativeDivisor, PixelWriter imageWriter) {
-		for (int y = 0; y < currentSize; y++) {
-			for (int x = 0; x < currentSize; x++) {
-				// calculate relative position in original image
-				int relativeX = (int) Math.round(x * relativeDivisor);
-				int relativeY = (int) Math.round(y * relativeDivisor);
-				
-				if (relativeX > DEFAULT_RESOLUTION - 1) {
-					relativeX = DEFAULT_RESOLUTION - 1;
-				}
-				
-				if (relativeY > DEFAULT_RESOLUTION - 1) {
-					relativeY = DEFAULT_RESOLUTION - 1;
-				}
-				
-				float val = grey[currentImage][relativeY][relativeX];
-				Color color = Color.color(val, val, val);
+		byte[] pixels = pipeline.render(currentImage, currentSize,
+				currentResizeMethod, currentGamma);
 
-				imageWriter.setColor(x, y, color);
-			}
-		}
-	}
-	
-	public void resizeBilinear(double relativeDivisor, PixelWriter imageWriter) {
-		for (int y = 0; y < currentSize; y++) {
-			for (int x = 0; x < currentSize; x++) {
-				// calculate relative position in original image
-				double relativeX = x * relativeDivisor;
-				double relativeY = y * relativeDivisor;
-				
-				if (relativeX > DEFAULT_RESOLUTION - 1) {
-					relativeX = DEFAULT_RESOLUTION - 1;
-				}
-				if (relativeY > DEFAULT_RESOLUTION - 1) {
-					relativeY = DEFAULT_RESOLUTION - 1;
-				}
-				
-				int x1 = (int) Math.floor(relativeX);
-				int x2 = (int) Math.ceil(relativeX);
-				int y1 = (int) Math.floor(relativeY);
-				int y2 = (int) Math.ceil(relativeY);
-				
-				float aColorValue = grey[currentImage][y1][x1];
-				float bColorValue = grey[currentImage][y2][x1];
-				float cColorValue = grey[currentImage][y2][x2];
-				float dColorValue = grey[currentImage][y1][x2];
-				
-				// if both relative coordinates are integers,
-				// just do nearest neighbor
-				if (relativeX - (int) relativeX == 0
-						&& relativeY - (int) relativeY == 0) {
-					float val = grey
-							[currentImage]
-							[(int) Math.round(relativeY)]
-							[(int) Math.round(relativeX)];
-					Color color = Color.color(val, val, val);
-					
-					// Apply the new color
-					imageWriter.setColor(x, y, color);
-				
-				// if only relative X coordinate is an integer,
-				// do lerp function only on y coordinates
-				} else if (relativeX - (int) relativeX == 0) {
-					float gColorValue = lerp(aColorValue, bColorValue,
-							y1, y2, relativeY);
-					
-					Color color = Color.color(gColorValue, gColorValue,
-							gColorValue);
-					imageWriter.setColor(x, y, color);
-				
-				// if only relative Y coordinate is an integer,
-				// do lerp function only on x coordinates
-				} else if (relativeY - (int) relativeY == 0) {
-					float gColorValue = lerp(aColorValue, dColorValue,
-							x1, x2, relativeX);
-					
-					Color color = Color.color(gColorValue, gColorValue,
-							gColorValue);
-					imageWriter.setColor(x, y, color);
-					
-				// if both coordinates are not integers,
-				// do full bilinear interpolation
-				} else {
-					float fColorValue = lerp(bColorValue, cColorValue,
-							x1, x2, relativeX);
-					
-					float eColorValue = lerp(aColorValue, dColorValue,
-							x1, x2, relativeX);
-					
-					float gColorValue = lerp(eColorValue, fColorValue,
-							y1, y2, relativeY);
-					
-					Color color = Color.color(gColorValue, gColorValue,
-							gColorValue);
-					
-					imageWriter.setColor(x, y, color);
-				}
-					//
-					// b - -f- c
-					// |    g  |
-					// |       |
-					// |       |
-					// a - -e- d
-					//
-					// where:
-					// a(x1,y1)
-					// b(x1,y2)
-					// c(x2,y2)
-					// d(x2,y1)
-					//
-					// e(relativeX,y1)
-					// f(relativeX,y2)
-					// g(relativeX,relativeY)
-			}
+		if (pipeline.getGeneration() != uploadedGeneration) {
+			this.upload(pixels, currentSize);
 		}
+
+		return uploadedImage;
 	}
-	
-	public void applyGammaCorrection(PixelWriter imageWriter, PixelReader imageReader) {
-		// create a look-up table
-		HashMap<Integer, Double> gammaValues = new HashMap<>(COLOR_VARIATIONS);
-		for (int i=0; i<COLOR_VARIATIONS; i++) {
-			gammaValues.put(i, Math.pow(i / 255.0, (1.0 / currentGamma)));
+
+	private void upload(byte[] pixels, int size) {
+		// reuse the image and pixel buffer while the size stays the same
+		if (uploadedImage == null || (int) uploadedImage.getWidth() != size) {
+			uploadedImage = new WritableImage(size, size);
+			argb = new int[size * size];
 		}
-		
-		for (int y = 0; y < currentSize; y++) {
-			for (int x = 0; x < currentSize; x++) {
-				double val = imageReader.getColor(y, x).getRed(); // we could take any channel as it is grey
-				//double newVal = Math.pow(val, 1.0/currentGamma); - this does not use look-up table
-				double newVal = gammaValues.get(Integer.valueOf((int) Math.round(val * 255.0))); // get value from look-up table
-				
-				Color color = Color.color(newVal, newVal, newVal);
-				
-				imageWriter.setColor(y, x, color);
-			}
+
+		// expand the grey bytes to opaque ARGB pixels
+		for (int i = 0; i < pixels.length; i++) {
+			int val = pixels[i] & 0xff;
+			argb[i] = 0xff000000 | (val << 16) | (val << 8) | val;
 		}
+
+		uploadedImage.getPixelWriter().setPixels(0, 0, size, size,
+				PixelFormat.getIntArgbInstance(), argb, 0, size);
+		uploadedGeneration = pipeline.getGeneration();
 	}
-	
-	public float lerp(float v1, float v2, double p1, double p2, double p) {		
-		return (float) (v1 + (v2 - v1) * ((p - p1) / (p2 - p1)));
-	}
-	
+
 	public void createThumbWindow(double atX, double atY) {
 		// create image containing all thumbs
 		WritableImage thumbImage = 
@@ -368,12 +184,12 @@ public class Main extends Application {
 			}
 		}
 		
-		double relativeDivisor = DEFAULT_RESOLUTION / (double) THUMB_PICTURE_SIZE;
+		double relativeDivisor = SliceRenderer.DEFAULT_RESOLUTION / (double) THUMB_PICTURE_SIZE;
 
 		for (int row = 0; row < THUMB_ROW_NUMBER; row++) { 
 			for (int col = 0; col < THUMB_COL_NUMBER; col++) {
 				int pictureNo = row * THUMB_COL_NUMBER + col;
-				if (pictureNo < PICTURE_NUMBER) { // in case last row is not perfect
+				if (pictureNo < CTVolume.PICTURE_NUMBER) { // in case last row is not perfect
 					for (int x = 0; x < THUMB_PICTURE_SIZE; x++) {
 						for (int y = 0; y < THUMB_PICTURE_SIZE; y++) {
 							
@@ -416,7 +232,7 @@ public class Main extends Application {
 				int selectedPicture = selectedRow * THUMB_COL_NUMBER + selectedColumn;
 				
 				//check if its not out of the thumbnails
-				if (selectedPicture < PICTURE_NUMBER) {
+				if (selectedPicture < CTVolume.PICTURE_NUMBER) {
 					// set displayed picture to new one, refresh the view
 					this.currentImage = selectedPicture;
 					
@@ -439,8 +255,7 @@ public class Main extends Application {
 	}
 	
 	public void updateImage() {
-		imageView.setImage(null); // clear the old image
-		Image newImage = getSlice();
+		Image newImage = getSlice(); // redraws in place unless the size changed
 		imageView.setImage(newImage); // Update the GUI so the new image is displayed
 	}
 	
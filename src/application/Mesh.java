@@ -0,0 +1,151 @@
+package application;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An indexed triangle mesh held in primitive buffers: x, y, z per vertex and
+ * three vertex indices per triangle.
+ */
+public class Mesh {
+	private static final int STL_HEADER_SIZE = 80;
+	private static final int STL_TRIANGLE_SIZE = 50;
+	private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+	private final float[] vertices;
+	private final int[] indices;
+
+	public Mesh(float[] vertices, int[] indices) {
+		this.vertices = vertices;
+		this.indices = indices;
+	}
+
+	public float[] getVertices() {
+		return vertices;
+	}
+
+	public int[] getIndices() {
+		return indices;
+	}
+
+	public int getVertexCount() {
+		return vertices.length / 3;
+	}
+
+	public int getTriangleCount() {
+		return indices.length / 3;
+	}
+
+	/**
+	 * Writes the mesh as binary STL or binary PLY, picked by the file
+	 * extension.
+	 */
+	public void write(String filename) throws IOException {
+		if (filename.toLowerCase().endsWith(".ply")) {
+			this.writePly(filename);
+		} else if (filename.toLowerCase().endsWith(".stl")) {
+			this.writeStl(filename);
+		} else {
+			throw new IllegalArgumentException("Unknown mesh format: " + filename);
+		}
+	}
+
+	public void writeStl(String filename) throws IOException {
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(filename))) {
+			ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE)
+					.order(ByteOrder.LITTLE_ENDIAN);
+
+			buffer.put(new byte[STL_HEADER_SIZE]);
+			buffer.putInt(this.getTriangleCount());
+
+			for (int t = 0; t < indices.length; t += 3) {
+				if (buffer.remaining() < STL_TRIANGLE_SIZE) {
+					flush(buffer, out);
+				}
+
+				int a = indices[t] * 3;
+				int b = indices[t + 1] * 3;
+				int c = indices[t + 2] * 3;
+
+				// facet normal from the winding order
+				float ux = vertices[b] - vertices[a];
+				float uy = vertices[b + 1] - vertices[a + 1];
+				float uz = vertices[b + 2] - vertices[a + 2];
+				float vx = vertices[c] - vertices[a];
+				float vy = vertices[c + 1] - vertices[a + 1];
+				float vz = vertices[c + 2] - vertices[a + 2];
+
+				float nx = uy * vz - uz * vy;
+				float ny = uz * vx - ux * vz;
+				float nz = ux * vy - uy * vx;
+				float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+				if (length > 0) {
+					nx /= length;
+					ny /= length;
+					nz /= length;
+				}
+
+				buffer.putFloat(nx).putFloat(ny).putFloat(nz);
+				this.putVertex(buffer, a);
+				this.putVertex(buffer, b);
+				this.putVertex(buffer, c);
+				buffer.putShort((short) 0); // attribute byte count
+			}
+
+			flush(buffer, out);
+		}
+	}
+
+	public void writePly(String filename) throws IOException {
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(filename))) {
+			String header = "ply\n"
+					+ "format binary_little_endian 1.0\n"
+					+ "element vertex " + this.getVertexCount() + "\n"
+					+ "property float x\n"
+					+ "property float y\n"
+					+ "property float z\n"
+					+ "element face " + this.getTriangleCount() + "\n"
+					+ "property list uchar int vertex_indices\n"
+					+ "end_header\n";
+			out.write(header.getBytes(StandardCharsets.US_ASCII));
+
+			ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE)
+					.order(ByteOrder.LITTLE_ENDIAN);
+
+			for (float coordinate : vertices) {
+				if (buffer.remaining() < Float.BYTES) {
+					flush(buffer, out);
+				}
+				buffer.putFloat(coordinate);
+			}
+
+			for (int t = 0; t < indices.length; t += 3) {
+				if (buffer.remaining() < 1 + 3 * Integer.BYTES) {
+					flush(buffer, out);
+				}
+				buffer.put((byte) 3)
+						.putInt(indices[t])
+						.putInt(indices[t + 1])
+						.putInt(indices[t + 2]);
+			}
+
+			flush(buffer, out);
+		}
+	}
+
+	private void putVertex(ByteBuffer buffer, int offset) {
+		buffer.putFloat(vertices[offset])
+				.putFloat(vertices[offset + 1])
+				.putFloat(vertices[offset + 2]);
+	}
+
+	private static void flush(ByteBuffer buffer, OutputStream out) throws IOException {
+		out.write(buffer.array(), 0, buffer.position());
+		buffer.clear();
+	}
+}
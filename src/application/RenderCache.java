@@ -0,0 +1,117 @@
+package application;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A least recently used cache of rendered results, bounded by the total
+ * number of bytes held. Concurrent requests for the same key share a single
+ * render: the first caller runs it and the others wait for its result.
+ * Renders still in flight count towards the bound only once they finish, so
+ * callers should limit how many run at once.
+ */
+public class RenderCache<K> {
+	private final long capacity;
+	private final LinkedHashMap<K, Entry> entries =
+			new LinkedHashMap<>(16, 0.75f, true);
+	private long weight;
+
+	private long hits;
+	private long misses;
+
+	private static class Entry {
+		private final FutureTask<byte[]> task;
+		private int weight; // zero until the render has finished
+
+		private Entry(FutureTask<byte[]> task) {
+			this.task = task;
+		}
+	}
+
+	public RenderCache(long capacity) {
+		this.capacity = capacity;
+	}
+
+	public byte[] get(K key, Callable<byte[]> renderer) throws ExecutionException {
+		Entry entry;
+		boolean owner = false;
+
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry == null) {
+				entry = new Entry(new FutureTask<>(renderer));
+				entries.put(key, entry);
+				owner = true;
+				misses++;
+			} else {
+				hits++;
+			}
+		}
+
+		if (owner) {
+			// render outside the lock so other keys are not held up
+			entry.task.run();
+			this.completed(key, entry);
+		}
+
+		try {
+			return entry.task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ExecutionException(e);
+		} catch (CancellationException e) {
+			throw new ExecutionException(e);
+		}
+	}
+
+	private synchronized void completed(K key, Entry entry) {
+		if (entries.get(key) != entry) {
+			return; // already evicted while rendering
+		}
+
+		try {
+			entry.weight = entry.task.get().length;
+		} catch (InterruptedException | ExecutionException e) {
+			// do not cache failures, the next request tries again
+			entries.remove(key);
+			return;
+		}
+
+		weight += entry.weight;
+		this.evict();
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<K, Entry>> it = entries.entrySet().iterator();
+		while (weight > capacity && it.hasNext()) {
+			Entry eldest = it.next().getValue();
+
+			// renders still in flight have no weight yet, leave them
+			if (eldest.task.isDone()) {
+				weight -= eldest.weight;
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getWeight() {
+		return weight;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+}
@@ -0,0 +1,107 @@
+package application;
+
+/**
+ * Renders slices for the viewer in stages:
+ *
+ * <pre>
+ * source slice -> resample -> tone map
+ * </pre>
+ *
+ * Each stage remembers its last inputs and output, so a change only
+ * recomputes the stages downstream of it. Moving the gamma slider reuses
+ * the resampled buffer and costs one look-up table pass; changing the
+ * resize method reuses the gamma table. The tone map output buffer is
+ * reused while the size stays the same. Uploading to the screen is the last
+ * stage and is done by the caller, which can skip it while
+ * {@link #getGeneration()} is unchanged.
+ *
+ * Not thread safe, it is meant to be driven from the JavaFX thread.
+ */
+public class RenderPipeline {
+	private final SliceRenderer renderer;
+
+	// source slice stage
+	private int sourceSlice = -1;
+	private float[][] source;
+
+	// resample stage
+	private float[][] resampledSource;
+	private int resampledSize;
+	private ResizeMethod resampledMethod;
+	private byte[] resampled;
+
+	// gamma look-up table used by the tone map stage
+	private double tableGamma = Double.NaN;
+	private byte[] gammaTable;
+
+	// tone map stage
+	private byte[] toneMapSource;
+	private byte[] toneMapTable;
+	private byte[] toneMapped;
+	private long generation;
+
+	public RenderPipeline(SliceRenderer renderer) {
+		this.renderer = renderer;
+	}
+
+	public byte[] render(int slice, int size, ResizeMethod method, double gamma) {
+		float[][] sourcePixels = this.source(slice);
+		byte[] resampledPixels = this.resample(sourcePixels, size, method);
+
+		return this.toneMap(resampledPixels, this.gammaTable(gamma));
+	}
+
+	private float[][] source(int slice) {
+		if (slice != sourceSlice) {
+			source = renderer.getSource(slice);
+			sourceSlice = slice;
+		}
+
+		return source;
+	}
+
+	private byte[] resample(float[][] sourcePixels, int size, ResizeMethod method) {
+		if (sourcePixels != resampledSource || size != resampledSize
+				|| method != resampledMethod) {
+			resampled = SliceRenderer.resize(sourcePixels, size, method);
+			resampledSource = sourcePixels;
+			resampledSize = size;
+			resampledMethod = method;
+		}
+
+		return resampled;
+	}
+
+	private byte[] gammaTable(double gamma) {
+		if (gamma != tableGamma) {
+			gammaTable = SliceRenderer.createGammaTable(gamma);
+			tableGamma = gamma;
+		}
+
+		return gammaTable;
+	}
+
+	private byte[] toneMap(byte[] pixels, byte[] table) {
+		if (pixels != toneMapSource || table != toneMapTable) {
+			if (toneMapped == null || toneMapped.length != pixels.length) {
+				toneMapped = new byte[pixels.length];
+			}
+
+			SliceRenderer.applyGammaCorrection(pixels, table, toneMapped);
+			toneMapSource = pixels;
+			toneMapTable = table;
+			generation++;
+		}
+
+		return toneMapped;
+	}
+
+	/**
+	 * Counts how many times the output has changed. The buffer returned by
+	 * {@link #render} is overwritten in place, so callers compare this
+	 * instead of the buffer.
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+}
@@ -0,0 +1,6 @@
+package application;
+
+public enum ResizeMethod {
+	NEAREST_NEIGHBOUR,
+	BILINEAR_INTERPOLATION
+}
@@ -0,0 +1,220 @@
+package application;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test for a running {@link SliceServer} on localhost. A number of
+ * concurrent clients request slices drawn from a small set of sizes, methods
+ * and gamma values, then throughput, latency percentiles and the server's
+ * cache hit ratio for the run are printed.
+ *
+ * In {@code zipf} mode, the default, every parameter is drawn from a Zipf
+ * distribution, so a few popular slices and settings are requested far more
+ * often than the rest, as when several tools look at the same region. This
+ * exercises the shared cache. In {@code uniform} mode almost every request
+ * is a cache miss, which measures raw rendering.
+ *
+ * Usage: SliceLoadTest [port] [clients] [requests per client] [zipf|uniform]
+ */
+public class SliceLoadTest {
+	private static final int DEFAULT_PORT = 8255;
+	private static final int DEFAULT_CLIENTS = 64;
+	private static final int DEFAULT_REQUESTS = 200;
+	private static final int WARMUP_REQUESTS = 200;
+	private static final double ZIPF_EXPONENT = 1.1;
+	private static final long SLICE_ORDER_SEED = 255;
+
+	private static final int SLICE_NUMBER = CTVolume.PICTURE_NUMBER;
+	private static final int[] SIZES = { 128, 256, 512, 1024 };
+	private static final String[] METHODS = { "nearest", "bilinear" };
+	private static final double[] GAMMAS = { .5, 1, 1.5, 2.2 };
+	private static final String[] FORMATS = { "png", "raw" };
+
+	private final HttpClient client;
+	private final String baseUri;
+	private final boolean zipf;
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+
+	// slices in order of popularity, so the hot ones are spread out
+	private final List<Integer> sliceOrder = new ArrayList<>();
+
+	private final double[] sliceWeights = zipfWeights(SLICE_NUMBER);
+	private final double[] sizeWeights = zipfWeights(SIZES.length);
+	private final double[] methodWeights = zipfWeights(METHODS.length);
+	private final double[] gammaWeights = zipfWeights(GAMMAS.length);
+	private final double[] formatWeights = zipfWeights(FORMATS.length);
+
+	public SliceLoadTest(int port, boolean zipf) {
+		this.client = HttpClient.newBuilder()
+				.executor(Executors.newVirtualThreadPerTaskExecutor())
+				.build();
+		this.baseUri = "http://localhost:" + port;
+		this.zipf = zipf;
+
+		for (int i = 0; i < SLICE_NUMBER; i++) {
+			sliceOrder.add(i);
+		}
+		Collections.shuffle(sliceOrder, new Random(SLICE_ORDER_SEED));
+	}
+
+	private URI randomUri(Random random) {
+		return URI.create(baseUri + "/slice/"
+				+ sliceOrder.get(this.pick(random, sliceWeights))
+				+ "?size=" + SIZES[this.pick(random, sizeWeights)]
+				+ "&method=" + METHODS[this.pick(random, methodWeights)]
+				+ "&gamma=" + GAMMAS[this.pick(random, gammaWeights)]
+				+ "&format=" + FORMATS[this.pick(random, formatWeights)]);
+	}
+
+	/**
+	 * Picks an index, by rank from the Zipf weights or uniformly.
+	 */
+	private int pick(Random random, double[] cumulativeWeights) {
+		if (!zipf) {
+			return random.nextInt(cumulativeWeights.length);
+		}
+
+		int index = Arrays.binarySearch(cumulativeWeights, random.nextDouble());
+		return Math.min(index < 0 ? -index - 1 : index, cumulativeWeights.length - 1);
+	}
+
+	/**
+	 * Cumulative probabilities of ranks 1 to n, rank k weighted 1 / k^s.
+	 */
+	private static double[] zipfWeights(int n) {
+		double[] cumulative = new double[n];
+		double total = 0;
+		for (int k = 0; k < n; k++) {
+			total += 1 / Math.pow(k + 1, ZIPF_EXPONENT);
+			cumulative[k] = total;
+		}
+		for (int k = 0; k < n; k++) {
+			cumulative[k] /= total;
+		}
+
+		return cumulative;
+	}
+
+	/**
+	 * Reads the cache counters from the server's stats page.
+	 */
+	private Map<String, Long> fetchStats() throws IOException, InterruptedException {
+		HttpRequest request = HttpRequest.newBuilder(URI.create(baseUri + "/stats")).build();
+		String body = client.send(request, HttpResponse.BodyHandlers.ofString()).body();
+
+		Map<String, Long> stats = new HashMap<>();
+		for (String pair : body.trim().split(" ")) {
+			int split = pair.indexOf('=');
+			stats.put(pair.substring(0, split), Long.parseLong(pair.substring(split + 1)));
+		}
+
+		return stats;
+	}
+
+	/**
+	 * Sends the requests of one client in sequence and returns the latency of
+	 * each in nanoseconds.
+	 */
+	private long[] runClient(int requests, long seed) throws InterruptedException {
+		Random random = new Random(seed);
+		long[] latencies = new long[requests];
+
+		for (int i = 0; i < requests; i++) {
+			HttpRequest request = HttpRequest.newBuilder(this.randomUri(random)).build();
+
+			long start = System.nanoTime();
+			try {
+				HttpResponse<byte[]> response =
+						client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+
+				if (response.statusCode() == 200) {
+					bytes.addAndGet(response.body().length);
+				} else {
+					errors.incrementAndGet();
+				}
+			} catch (IOException e) {
+				// a failed request counts as an error, the run carries on
+				errors.incrementAndGet();
+			}
+			latencies[i] = System.nanoTime() - start;
+		}
+
+		return latencies;
+	}
+
+	public void run(int clients, int requests) throws Exception {
+		// warm up the JIT on both sides before measuring
+		this.runClient(WARMUP_REQUESTS, -1);
+		bytes.set(0);
+		errors.set(0);
+
+		Map<String, Long> statsBefore = this.fetchStats();
+
+		List<Future<long[]>> results = new ArrayList<>();
+		long start = System.nanoTime();
+
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int c = 0; c < clients; c++) {
+				long seed = c;
+				results.add(executor.submit(() -> this.runClient(requests, seed)));
+			}
+		}
+
+		long elapsed = System.nanoTime() - start;
+
+		Map<String, Long> statsAfter = this.fetchStats();
+		long hits = statsAfter.get("hits") - statsBefore.get("hits");
+		long misses = statsAfter.get("misses") - statsBefore.get("misses");
+
+		long[] latencies = new long[clients * requests];
+		int count = 0;
+		for (Future<long[]> result : results) {
+			long[] clientLatencies = result.get();
+			System.arraycopy(clientLatencies, 0, latencies, count, clientLatencies.length);
+			count += clientLatencies.length;
+		}
+		Arrays.sort(latencies);
+
+		double seconds = elapsed / 1e9;
+		System.out.printf("%d clients x %d requests (%s) in %.2f s, %d errors%n",
+				clients, requests, zipf ? "zipf" : "uniform", seconds, errors.get());
+		System.out.printf("throughput: %.0f requests/s, %.1f MB/s%n",
+				latencies.length / seconds, bytes.get() / seconds / (1024 * 1024));
+		System.out.printf("latency ms: p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+				percentile(latencies, 50), percentile(latencies, 90),
+				percentile(latencies, 99), percentile(latencies, 99.9),
+				latencies[latencies.length - 1] / 1e6);
+		System.out.printf("cache: %d hits, %d misses, hit ratio %.1f%%%n",
+				hits, misses, 100.0 * hits / Math.max(1, hits + misses));
+	}
+
+	private static double percentile(long[] sorted, double percentile) {
+		int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int clients = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CLIENTS;
+		int requests = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_REQUESTS;
+		boolean zipf = args.length <= 3 || !args[3].equals("uniform");
+
+		new SliceLoadTest(port, zipf).run(clients, requests);
+	}
+}
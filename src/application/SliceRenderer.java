@@ -0,0 +1,189 @@
+package application;
+
+/**
+ * Renders a resized, gamma corrected slice of the volume as 8-bit grey
+ * pixels, one byte per pixel in row order. It has no JavaFX dependency, so
+ * the viewer and the slice server share the same resize and gamma code.
+ */
+public class SliceRenderer {
+	// limits shared by the viewer sliders and the slice server
+	public static final int MIN_RESOLUTION = 32;
+	public static final int MAX_RESOLUTION = 1024;
+	public static final int DEFAULT_RESOLUTION = 256;
+
+	public static final double MIN_GAMMA = .1;
+	public static final double MAX_GAMMA = 4;
+	public static final double DEFAULT_GAMMA = 1;
+
+	private static final int SOURCE_RESOLUTION = CTVolume.PICTURE_WIDTH;
+
+	private static final int COLOR_VARIATIONS = 256;
+
+	private final float grey[][][];
+
+	public SliceRenderer(float[][][] grey) {
+		this.grey = grey;
+	}
+
+	public int getSliceCount() {
+		return grey.length;
+	}
+
+	public byte[] render(int slice, int size, ResizeMethod method, double gamma) {
+		byte[] pixels = resize(this.getSource(slice), size, method);
+
+		applyGammaCorrection(pixels, createGammaTable(gamma));
+
+		return pixels;
+	}
+
+	public float[][] getSource(int slice) {
+		return grey[slice];
+	}
+
+	public static byte[] resize(float[][] source, int size, ResizeMethod method) {
+		double relativeDivisor = SOURCE_RESOLUTION / (double) size;
+
+		if (method == ResizeMethod.BILINEAR_INTERPOLATION) {
+			return resizeBilinear(source, size, relativeDivisor);
+		}
+
+		return resizeNearest(source, size, relativeDivisor);
+	}
+
+	public static byte[] resizeNearest(float[][] source, int size, double relativeDivisor) {
+		byte[] pixels = new byte[size * size];
+
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				// calculate relative position in original image
+				int relativeX = (int) Math.round(x * relativeDivisor);
+				int relativeY = (int) Math.round(y * relativeDivisor);
+
+				if (relativeX > SOURCE_RESOLUTION - 1) {
+					relativeX = SOURCE_RESOLUTION - 1;
+				}
+
+				if (relativeY > SOURCE_RESOLUTION - 1) {
+					relativeY = SOURCE_RESOLUTION - 1;
+				}
+
+				pixels[y * size + x] = toGreyByte(source[relativeY][relativeX]);
+			}
+		}
+
+		return pixels;
+	}
+
+	public static byte[] resizeBilinear(float[][] source, int size, double relativeDivisor) {
+		byte[] pixels = new byte[size * size];
+
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				// calculate relative position in original image
+				double relativeX = x * relativeDivisor;
+				double relativeY = y * relativeDivisor;
+
+				if (relativeX > SOURCE_RESOLUTION - 1) {
+					relativeX = SOURCE_RESOLUTION - 1;
+				}
+				if (relativeY > SOURCE_RESOLUTION - 1) {
+					relativeY = SOURCE_RESOLUTION - 1;
+				}
+
+				int x1 = (int) Math.floor(relativeX);
+				int x2 = (int) Math.ceil(relativeX);
+				int y1 = (int) Math.floor(relativeY);
+				int y2 = (int) Math.ceil(relativeY);
+
+				float aColorValue = source[y1][x1];
+				float bColorValue = source[y2][x1];
+				float cColorValue = source[y2][x2];
+				float dColorValue = source[y1][x2];
+
+				float gColorValue;
+
+				// if both relative coordinates are integers,
+				// just do nearest neighbor
+				if (relativeX - (int) relativeX == 0
+						&& relativeY - (int) relativeY == 0) {
+					gColorValue = source
+							[(int) Math.round(relativeY)]
+							[(int) Math.round(relativeX)];
+
+				// if only relative X coordinate is an integer,
+				// do lerp function only on y coordinates
+				} else if (relativeX - (int) relativeX == 0) {
+					gColorValue = lerp(aColorValue, bColorValue,
+							y1, y2, relativeY);
+
+				// if only relative Y coordinate is an integer,
+				// do lerp function only on x coordinates
+				} else if (relativeY - (int) relativeY == 0) {
+					gColorValue = lerp(aColorValue, dColorValue,
+							x1, x2, relativeX);
+
+				// if both coordinates are not integers,
+				// do full bilinear interpolation
+				} else {
+					float fColorValue = lerp(bColorValue, cColorValue,
+							x1, x2, relativeX);
+
+					float eColorValue = lerp(aColorValue, dColorValue,
+							x1, x2, relativeX);
+
+					gColorValue = lerp(eColorValue, fColorValue,
+							y1, y2, relativeY);
+				}
+					//
+					// b - -f- c
+					// |    g  |
+					// |       |
+					// |       |
+					// a - -e- d
+					//
+					// where:
+					// a(x1,y1)
+					// b(x1,y2)
+					// c(x2,y2)
+					// d(x2,y1)
+					//
+					// e(relativeX,y1)
+					// f(relativeX,y2)
+					// g(relativeX,relativeY)
+
+				pixels[y * size + x] = toGreyByte(gColorValue);
+			}
+		}
+
+		return pixels;
+	}
+
+	public static byte[] createGammaTable(double gamma) {
+		// create a look-up table
+		byte[] gammaValues = new byte[COLOR_VARIATIONS];
+		for (int i = 0; i < COLOR_VARIATIONS; i++) {
+			gammaValues[i] = toGreyByte(Math.pow(i / 255.0, (1.0 / gamma)));
+		}
+
+		return gammaValues;
+	}
+
+	public static void applyGammaCorrection(byte[] pixels, byte[] gammaValues) {
+		applyGammaCorrection(pixels, gammaValues, pixels);
+	}
+
+	public static void applyGammaCorrection(byte[] pixels, byte[] gammaValues, byte[] corrected) {
+		for (int i = 0; i < pixels.length; i++) {
+			corrected[i] = gammaValues[pixels[i] & 0xff]; // get value from look-up table
+		}
+	}
+
+	public static float lerp(float v1, float v2, double p1, double p2, double p) {
+		return (float) (v1 + (v2 - v1) * ((p - p1) / (p2 - p1)));
+	}
+
+	private static byte toGreyByte(double val) {
+		return (byte) Math.round(val * 255.0);
+	}
+}
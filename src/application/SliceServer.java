@@ -0,0 +1,292 @@
+package application;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import javax.imageio.ImageIO;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves rendered slices over HTTP on the loopback interface, so other tools
+ * on the same host do not have to load the volume themselves.
+ *
+ * <pre>
+ * GET /slice/{n}?size=256&amp;method=nearest&amp;gamma=1&amp;format=png
+ * </pre>
+ *
+ * {@code method} is {@code nearest} or {@code bilinear} and {@code format} is
+ * {@code png} or {@code raw}. Raw responses are size * size grey bytes in row
+ * order. Each request runs on its own virtual thread and rendered results are
+ * shared between clients through a {@link RenderCache}. Rendering is CPU
+ * bound, so at most one render per processor runs at a time; the other
+ * requests wait on their virtual threads rather than time-slicing the CPU.
+ * {@code GET /stats} reports the cache hits, misses, entries and bytes.
+ */
+public class SliceServer {
+	private static final int DEFAULT_PORT = 8255;
+	private static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+
+	private static final String SLICE_PATH = "/slice/";
+	private static final String STATS_PATH = "/stats";
+
+	private final SliceRenderer renderer;
+	private final RenderCache<SliceKey> cache;
+	private final Semaphore renderPermits =
+			new Semaphore(Runtime.getRuntime().availableProcessors());
+	private HttpServer server;
+	private ExecutorService executor;
+
+	enum Format {
+		PNG("image/png"),
+		RAW("application/octet-stream");
+
+		private final String contentType;
+
+		Format(String contentType) {
+			this.contentType = contentType;
+		}
+	}
+
+	record SliceKey(int slice, int size, ResizeMethod method, double gamma,
+			Format format) {
+	}
+
+	/**
+	 * Thrown for a request the server cannot answer, carrying the HTTP status
+	 * to reply with.
+	 */
+	private static class BadRequestException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		private final int status;
+
+		private BadRequestException(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+	}
+
+	public SliceServer(SliceRenderer renderer, long cacheBytes) {
+		this.renderer = renderer;
+		this.cache = new RenderCache<>(cacheBytes);
+	}
+
+	public void start(int port) throws IOException {
+		server = HttpServer.create(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		executor = Executors.newVirtualThreadPerTaskExecutor();
+
+		server.createContext(SLICE_PATH, this::handle);
+		server.createContext(STATS_PATH, this::handleStats);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdown();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public RenderCache<SliceKey> getCache() {
+		return cache;
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				throw new BadRequestException(405, "only GET is supported");
+			}
+
+			SliceKey key = this.parseRequest(exchange);
+			byte[] body = cache.get(key, () -> this.render(key));
+
+			exchange.getResponseHeaders().set("Content-Type", key.format().contentType);
+			exchange.getResponseHeaders().set("X-Slice-Size", Integer.toString(key.size()));
+			this.send(exchange, 200, body);
+		} catch (BadRequestException e) {
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+			this.send(exchange, e.status, (e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+			this.send(exchange, 500, "could not render slice\n".getBytes(StandardCharsets.UTF_8));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void handleStats(HttpExchange exchange) throws IOException {
+		String stats = "hits=" + cache.getHits()
+				+ " misses=" + cache.getMisses()
+				+ " entries=" + cache.size()
+				+ " bytes=" + cache.getWeight() + "\n";
+
+		try {
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+			this.send(exchange, 200, stats.getBytes(StandardCharsets.UTF_8));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private SliceKey parseRequest(HttpExchange exchange) throws BadRequestException {
+		String path = exchange.getRequestURI().getPath();
+		Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+
+		int slice = parseInt(path.substring(SLICE_PATH.length()), "slice");
+		if (slice < 0 || slice >= renderer.getSliceCount()) {
+			throw new BadRequestException(404, "slice must be between 0 and "
+					+ (renderer.getSliceCount() - 1));
+		}
+
+		int size = SliceRenderer.DEFAULT_RESOLUTION;
+		if (query.containsKey("size")) {
+			size = parseInt(query.get("size"), "size");
+		}
+		if (size < SliceRenderer.MIN_RESOLUTION
+				|| size > SliceRenderer.MAX_RESOLUTION) {
+			throw new BadRequestException(400, "size must be between "
+					+ SliceRenderer.MIN_RESOLUTION + " and " + SliceRenderer.MAX_RESOLUTION);
+		}
+
+		ResizeMethod method = ResizeMethod.NEAREST_NEIGHBOUR;
+		String methodName = query.getOrDefault("method", "nearest");
+		if (methodName.equals("bilinear")) {
+			method = ResizeMethod.BILINEAR_INTERPOLATION;
+		} else if (!methodName.equals("nearest")) {
+			throw new BadRequestException(400, "method must be nearest or bilinear");
+		}
+
+		double gamma = SliceRenderer.DEFAULT_GAMMA;
+		if (query.containsKey("gamma")) {
+			try {
+				gamma = Double.parseDouble(query.get("gamma"));
+			} catch (NumberFormatException e) {
+				throw new BadRequestException(400, "gamma is not a number");
+			}
+		}
+		// the negated check also rejects NaN
+		if (!(gamma >= SliceRenderer.MIN_GAMMA && gamma <= SliceRenderer.MAX_GAMMA)) {
+			throw new BadRequestException(400, "gamma must be between "
+					+ SliceRenderer.MIN_GAMMA + " and " + SliceRenderer.MAX_GAMMA);
+		}
+
+		Format format;
+		String formatName = query.getOrDefault("format", "png");
+		if (formatName.equals("png")) {
+			format = Format.PNG;
+		} else if (formatName.equals("raw")) {
+			format = Format.RAW;
+		} else {
+			throw new BadRequestException(400, "format must be png or raw");
+		}
+
+		return new SliceKey(slice, size, method, gamma, format);
+	}
+
+	private static int parseInt(String value, String name) throws BadRequestException {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new BadRequestException(400, name + " is not a whole number");
+		}
+	}
+
+	private static Map<String, String> parseQuery(String rawQuery) {
+		Map<String, String> query = new HashMap<>();
+		if (rawQuery == null) {
+			return query;
+		}
+
+		for (String pair : rawQuery.split("&")) {
+			int split = pair.indexOf('=');
+			if (split > 0) {
+				query.put(URLDecoder.decode(pair.substring(0, split), StandardCharsets.UTF_8),
+						URLDecoder.decode(pair.substring(split + 1), StandardCharsets.UTF_8));
+			}
+		}
+
+		return query;
+	}
+
+	private byte[] render(SliceKey key) throws IOException, InterruptedException {
+		// cache hits and requests waiting on the same render take no permit
+		renderPermits.acquire();
+		try {
+			return this.encode(key,
+					renderer.render(key.slice(), key.size(), key.method(), key.gamma()));
+		} finally {
+			renderPermits.release();
+		}
+	}
+
+	private byte[] encode(SliceKey key, byte[] pixels) throws IOException {
+
+		if (key.format() == Format.RAW) {
+			return pixels;
+		}
+
+		BufferedImage image = new BufferedImage(key.size(), key.size(),
+				BufferedImage.TYPE_BYTE_GRAY);
+		image.getRaster().setDataElements(0, 0, key.size(), key.size(), pixels);
+
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", png);
+
+		return png.toByteArray();
+	}
+
+	/**
+	 * Usage: SliceServer [port] [cache megabytes]
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		long cacheBytes = args.length > 1
+				? Long.parseLong(args[1]) * 1024 * 1024 : DEFAULT_CACHE_BYTES;
+
+		CTVolume volume;
+		try {
+			volume = CTVolume.read(CTVolume.FILENAME);
+		} catch (IOException e) {
+			System.out.println("Could not find CThead file in the working "
+					+ "directory.");
+			System.out.println("Working Directory = "
+					+ System.getProperty("user.dir"));
+			e.printStackTrace();
+			System.exit(1);
+			return;
+		}
+
+		SliceServer sliceServer =
+				new SliceServer(new SliceRenderer(volume.getGrey()), cacheBytes);
+		sliceServer.start(port);
+
+		System.out.println("Serving slices on http://localhost:"
+				+ sliceServer.getPort() + SLICE_PATH);
+	}
+}